@@ -17,7 +17,8 @@ public class XmlDiffService {
     /**
      * Vergleicht zwei Elemente rekursiv und erzeugt ein ChangeSet.
      * Kinderlisten werden pro Tagname via LCS gematcht (soft),
-     * Inhaltsänderungen (Attribute/Text) werden danach als MODIFY erkannt (strict).
+     * Inhaltsänderungen werden danach granular als SET_ATTRIBUTE / REMOVE_ATTRIBUTE / REPLACE_TEXT
+     * erkannt (strict). MODIFY (ganzes Element ersetzen) gibt es nur noch bei geändertem Tagnamen.
      */
     public static ChangeSet compareElements(Element oldElement, Element newElement, String path) {
         ChangeSet changes = new ChangeSet();
@@ -29,11 +30,7 @@ public class XmlDiffService {
         }
 
         // 1) Eigenen Inhalt vergleichen (Attribute reihenfolgeunabhängig + Text)
-        boolean selfModified = !attrsToMap(oldElement).equals(attrsToMap(newElement))
-                || !Objects.equals(oldElement.getTextNormalize(), newElement.getTextNormalize());
-        if (selfModified) {
-            changes.addChange(new Change(ChangeType.MODIFY, path, oldElement, newElement));
-        }
+        compareOwnContent(oldElement, newElement, path, changes);
 
         // 2) Kinder gruppieren (pro Tagname) und LCS pro Gruppe fahren
         Map<String, List<Element>> oldGroups = groupChildrenByName(oldElement);
@@ -77,6 +74,32 @@ public class XmlDiffService {
         return changes;
     }
 
+    // Attribute und Text einer Ebene vergleichen → je Unterschied eine eigene Operation,
+    // damit beim Mergen nicht der ganze Teilbaum ersetzt werden muss
+    private static void compareOwnContent(Element oldElement, Element newElement, String path, ChangeSet changes) {
+        Map<String, String> oldAttrs = attrsToMap(oldElement);
+        Map<String, String> newAttrs = attrsToMap(newElement);
+
+        for (Map.Entry<String, String> en : newAttrs.entrySet()) {
+            String oldValue = oldAttrs.get(en.getKey());
+            if (!en.getValue().equals(oldValue)) {
+                changes.addChange(new Change(ChangeType.SET_ATTRIBUTE, path, oldElement, newElement,
+                        en.getKey(), oldValue, en.getValue()));
+            }
+        }
+        for (Map.Entry<String, String> en : oldAttrs.entrySet()) {
+            if (!newAttrs.containsKey(en.getKey())) {
+                changes.addChange(new Change(ChangeType.REMOVE_ATTRIBUTE, path, oldElement, newElement,
+                        en.getKey(), en.getValue(), null));
+            }
+        }
+
+        if (!Objects.equals(oldElement.getTextNormalize(), newElement.getTextNormalize())) {
+            changes.addChange(new Change(ChangeType.REPLACE_TEXT, path, oldElement, newElement,
+                    null, oldElement.getText(), newElement.getText()));
+        }
+    }
+
     // ===== LCS auf Basis stabiler Element-Signaturen (ohne Kinder, ohne Text) =====
 
     private static List<DiffOp> computeLcsDiff(List<Element> oldList, List<Element> newList) {
@@ -110,7 +133,50 @@ public class XmlDiffService {
         while (i < m) ops.add(new DiffOp(DiffType.REMOVE, i++));
         while (j < n) ops.add(new DiffOp(DiffType.ADD, j++));
 
-        return ops;
+        return matchIdlessByPosition(ops, oldList, newList);
+    }
+
+    // Elemente ohne id werden über den Attr-Hash gematcht, d.h. eine Attributänderung würde
+    // REMOVE+ADD des ganzen Teilbaums ergeben. Daher werden innerhalb jeder Lücke zwischen zwei
+    // MATCHes die entfernten und hinzugefügten Elemente ohne id der Reihe nach gepaart.
+    private static List<DiffOp> matchIdlessByPosition(List<DiffOp> ops, List<Element> oldList, List<Element> newList) {
+        List<DiffOp> result = new ArrayList<>();
+        List<DiffOp> gap = new ArrayList<>();
+        for (DiffOp op : ops) {
+            if (op.type() == DiffType.MATCH) {
+                flushGap(gap, oldList, newList, result);
+                result.add(op);
+            } else {
+                gap.add(op);
+            }
+        }
+        flushGap(gap, oldList, newList, result);
+        return result;
+    }
+
+    private static void flushGap(List<DiffOp> gap, List<Element> oldList, List<Element> newList, List<DiffOp> result) {
+        List<DiffOp> removes = gap.stream().filter(op -> op.type() == DiffType.REMOVE).collect(Collectors.toList());
+        List<DiffOp> adds = gap.stream().filter(op -> op.type() == DiffType.ADD).collect(Collectors.toList());
+        List<DiffOp> idlessRemoves = removes.stream()
+                .filter(op -> oldList.get(op.index()).getAttributeValue("id") == null)
+                .collect(Collectors.toList());
+        List<DiffOp> idlessAdds = adds.stream()
+                .filter(op -> newList.get(op.index()).getAttributeValue("id") == null)
+                .collect(Collectors.toList());
+
+        // Reihenfolge der REMOVEs bzw. ADDs untereinander bleibt erhalten (compareElements läuft sequenziell)
+        int r = 0, a = 0;
+        for (int p = 0; p < Math.min(idlessRemoves.size(), idlessAdds.size()); p++) {
+            DiffOp removed = idlessRemoves.get(p);
+            DiffOp added = idlessAdds.get(p);
+            while (removes.get(r) != removed) result.add(removes.get(r++));
+            while (adds.get(a) != added) result.add(adds.get(a++));
+            result.add(new DiffOp(DiffType.MATCH, added.index()));
+            r++; a++;
+        }
+        while (r < removes.size()) result.add(removes.get(r++));
+        while (a < adds.size()) result.add(adds.get(a++));
+        gap.clear();
     }
 
     // ===== Gleichheit/Signatur =====
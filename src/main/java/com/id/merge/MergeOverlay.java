@@ -0,0 +1,374 @@
+package com.id.merge;
+
+import com.id.model.Change;
+import org.jdom2.*;
+import org.jdom2.output.Format;
+import org.jdom2.output.support.AbstractXMLOutputProcessor;
+import org.jdom2.output.support.FormatStack;
+import org.jdom2.util.NamespaceStack;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copy-on-Write-Sicht auf ein Kunden-Dokument für nicht-destruktive Merges.
+ * Nur Elemente auf geänderten Pfaden werden materialisiert (eigene Attribute + eigene Content-Liste),
+ * alle übrigen Teilbäume werden direkt aus dem Kunden-Dokument geteilt und nie verändert.
+ */
+public class MergeOverlay {
+
+    private final Document source;
+    // Entweder das (geteilte) Root-Element oder ein materialisierter Node
+    private Object root;
+
+    // Materialisierte Kopie eines Elements. Einträge in content sind geteilte Content-Objekte
+    // des Kunden-Baums (bzw. losgelöste Klone aus baseline_new) oder wieder Nodes.
+    private static final class Node {
+        final Element source;
+        final List<Attribute> attributes = new ArrayList<>();
+        final List<Object> content;
+
+        Node(Element source) {
+            this.source = source;
+            for (Attribute a : source.getAttributes()) attributes.add(a.clone());
+            this.content = new ArrayList<>(source.getContent());
+        }
+    }
+
+    MergeOverlay(Document source) {
+        this.source = source;
+        this.root = source.getRootElement();
+    }
+
+    // Wendet eine Baseline-Änderung an; einzige Anwendungslogik für merge() und preview().
+    // false, wenn die Änderung nicht eindeutig angewendet werden kann (→ Konflikt)
+    boolean apply(Change change) {
+        String[] parts = change.getPath().split("/");
+        if (parts.length == 1) {
+            return applyToRoot(change);
+        }
+
+        Node parent = materializePath(parts);
+        if (parent == null) return true;
+
+        String name = XmlMergeService.extractElementName(change.getPath());
+        // WICHTIG: Index nur aus dem letzten Segment ziehen (z.B. "item[2]")
+        int nth = XmlMergeService.extractIndex(XmlMergeService.lastSegment(change.getPath())) - 1; // 0-basiert
+
+        switch (change.getType()) {
+            case ADD -> {
+                Element toAdd = change.getNewElement().clone();
+                parent.content.add(findInsertPosition(parent, name, nth), toAdd);
+            }
+            case REMOVE -> {
+                int idx = findNthChildIndex(parent, name, nth);
+                if (idx >= 0) parent.content.remove(idx);
+            }
+            // Nur bei geändertem Tagnamen: ganzes Element ersetzen
+            case MODIFY -> {
+                int idx = findNthChildIndex(parent, name, nth);
+                if (idx >= 0) parent.content.set(idx, change.getNewElement().clone());
+            }
+            case SET_ATTRIBUTE, REMOVE_ATTRIBUTE, REPLACE_TEXT -> {
+                int idx = findNthChildIndex(parent, name, nth);
+                if (idx >= 0) return applyOwnContent(materialize(parent, idx), change);
+            }
+        }
+        return true;
+    }
+
+    private boolean applyToRoot(Change change) {
+        switch (change.getType()) {
+            // Kinder werden nur bei gleichem Tagnamen gematcht, MODIFY tritt praktisch nur hier auf
+            case MODIFY -> root = change.getNewElement().clone();
+            case SET_ATTRIBUTE, REMOVE_ATTRIBUTE, REPLACE_TEXT -> {
+                return applyOwnContent(materializeRoot(), change);
+            }
+            default -> { }
+        }
+        return true;
+    }
+
+    private boolean applyOwnContent(Node target, Change change) {
+        switch (change.getType()) {
+            case SET_ATTRIBUTE -> setAttribute(target, change);
+            case REMOVE_ATTRIBUTE -> {
+                int idx = findAttributeIndex(target, change.getAttributeName());
+                if (idx >= 0) target.attributes.remove(idx);
+            }
+            case REPLACE_TEXT -> {
+                return replaceText(target, change);
+            }
+            default -> { }
+        }
+        return true;
+    }
+
+    private void setAttribute(Node target, Change change) {
+        int idx = findAttributeIndex(target, change.getAttributeName());
+        if (idx >= 0) {
+            target.attributes.get(idx).setValue(change.getNewValue());
+            return;
+        }
+        Attribute sourceAttr = change.getNewElement().getAttributes().stream()
+                .filter(a -> a.getName().equals(change.getAttributeName()))
+                .findFirst().orElse(null);
+        target.attributes.add(sourceAttr != null
+                ? sourceAttr.clone()
+                : new Attribute(change.getAttributeName(), change.getNewValue()));
+    }
+
+    // Attribute werden wie im Diff nur über den Namen (ohne Namespace) identifiziert
+    private int findAttributeIndex(Node target, String attributeName) {
+        for (int i = 0; i < target.attributes.size(); i++) {
+            if (target.attributes.get(i).getName().equals(attributeName)) return i;
+        }
+        return -1;
+    }
+
+    // Textsegmente (nicht-leere Textknoten) werden eins zu eins zugeordnet, damit Text zwischen
+    // Kindelementen an seiner Stelle bleibt. Ist die Zuordnung nicht eindeutig → false (Konflikt).
+    private boolean replaceText(Node target, Change change) {
+        List<Integer> targetSegments = textSegments(target.content);
+        List<Content> oldContent = change.getOldElement().getContent();
+        List<Content> newContent = change.getNewElement().getContent();
+        List<Integer> oldSegments = textSegments(oldContent);
+        List<Integer> newSegments = textSegments(newContent);
+
+        if (oldSegments.size() == newSegments.size() && oldSegments.size() == targetSegments.size()) {
+            for (int i = 0; i < targetSegments.size(); i++) {
+                String oldText = ((Text) oldContent.get(oldSegments.get(i))).getTextNormalize();
+                Text newText = (Text) newContent.get(newSegments.get(i));
+                if (oldText.equals(newText.getTextNormalize())) continue;
+                int idx = targetSegments.get(i);
+                // Geteilte Textknoten nicht verändern, sondern ersetzen (CDATA bleibt CDATA)
+                target.content.set(idx, target.content.get(idx) instanceof CDATA
+                        ? new CDATA(newText.getText())
+                        : new Text(newText.getText()));
+            }
+            return true;
+        }
+
+        // Ohne Kindelemente und mit höchstens einem Segment je Seite ist die Zuordnung trotzdem eindeutig
+        // (z.B. Text kommt hinzu oder fällt weg): nur Textknoten ersetzen, Kommentare/PIs bleiben erhalten
+        boolean leaf = target.content.stream().noneMatch(c -> c instanceof Element || c instanceof Node);
+        if (!leaf || oldSegments.size() > 1 || newSegments.size() > 1 || targetSegments.size() > 1) {
+            return false;
+        }
+        int insertPos = -1;
+        for (int i = target.content.size() - 1; i >= 0; i--) {
+            if (target.content.get(i) instanceof Text) {
+                target.content.remove(i);
+                insertPos = i;
+            }
+        }
+        String text = change.getNewValue();
+        if (text != null && !text.isEmpty()) {
+            target.content.add(insertPos < 0 ? target.content.size() : insertPos, new Text(text));
+        }
+        return true;
+    }
+
+    private static List<Integer> textSegments(List<?> content) {
+        List<Integer> segments = new ArrayList<>();
+        for (int i = 0; i < content.size(); i++) {
+            if (content.get(i) instanceof Text t && !t.getTextTrim().isEmpty()) segments.add(i);
+        }
+        return segments;
+    }
+
+    // ===== Navigation / Materialisierung =====
+
+    private Node materializeRoot() {
+        if (root instanceof Node n) return n;
+        Node n = new Node((Element) root);
+        root = n;
+        return n;
+    }
+
+    // Materialisiert alle Elemente vom Root bis zum Parent des letzten Pfadsegments
+    private Node materializePath(String[] parts) {
+        Node current = materializeRoot();
+        for (int i = 1; i < parts.length - 1; i++) {
+            String name = parts[i].replaceAll("\\[\\d+\\]", "");
+            int idx = findNthChildIndex(current, name, XmlMergeService.extractIndex(parts[i]) - 1);
+            if (idx < 0) return null;
+            current = materialize(current, idx);
+        }
+        return current;
+    }
+
+    private Node materialize(Node parent, int idx) {
+        Object item = parent.content.get(idx);
+        if (item instanceof Node n) return n;
+        Node n = new Node((Element) item);
+        parent.content.set(idx, n);
+        return n;
+    }
+
+    private int findNthChildIndex(Node parent, String name, int nth) {
+        int count = 0;
+        for (int i = 0; i < parent.content.size(); i++) {
+            if (name.equals(elementName(parent.content.get(i)))) {
+                if (count == nth) return i;
+                count++;
+            }
+        }
+        return -1;
+    }
+
+    // Einfügeposition für das n-te gleichnamige Element: vor das erste gleichnamige (nth == 0)
+    // bzw. hinter das (nth-1)-te, sonst ans Ende
+    private int findInsertPosition(Node parent, String name, int nth) {
+        int count = 0;
+        for (int i = 0; i < parent.content.size(); i++) {
+            if (name.equals(elementName(parent.content.get(i)))) {
+                if (nth <= 0) return i;
+                if (count == nth - 1) return i + 1;
+                count++;
+            }
+        }
+        return parent.content.size();
+    }
+
+    private static String elementName(Object item) {
+        if (item instanceof Node n) return n.source.getName();
+        if (item instanceof Element e) return e.getName();
+        return null;
+    }
+
+    // ===== Commit =====
+
+    // Überträgt das Overlay in das Kunden-Dokument (destruktiver Merge).
+    // Nur materialisierte Elemente werden angefasst; das Overlay ist danach nicht mehr zu verwenden.
+    void writeBack() {
+        if (root instanceof Node n) writeBack(n);
+        else if (root != source.getRootElement()) source.setRootElement((Element) root);
+    }
+
+    private static Element writeBack(Node n) {
+        List<Content> content = new ArrayList<>(n.content.size());
+        for (Object item : n.content) {
+            content.add(item instanceof Node child ? writeBack(child) : (Content) item);
+        }
+        n.source.setAttributes(n.attributes);
+        n.source.setContent(content);
+        return n.source;
+    }
+
+    /**
+     * Erzeugt ein eigenständiges Dokument mit dem Merge-Ergebnis.
+     * Geteilte Teilbäume werden dabei geklont, das Kunden-Dokument bleibt unverändert.
+     */
+    public Document commit() {
+        Document doc = new Document();
+        for (Content c : source.getContent()) {
+            if (c instanceof Element) doc.addContent(build(root));
+            else doc.addContent(c.clone());
+        }
+        return doc;
+    }
+
+    private static Element build(Object item) {
+        if (item instanceof Element e) return e.clone();
+        Node n = (Node) item;
+        Element e = new Element(n.source.getName(), n.source.getNamespace());
+        for (Namespace ns : n.source.getAdditionalNamespaces()) e.addNamespaceDeclaration(ns);
+        for (Attribute a : n.attributes) e.setAttribute(a.clone());
+        for (Object c : n.content) {
+            e.addContent(c instanceof Node ? build(c) : ((Content) c).clone());
+        }
+        return e;
+    }
+
+    // ===== Serialisierung =====
+
+    /**
+     * Schreibt das Merge-Ergebnis direkt (UTF-8, Whitespace wie im Kunden-Dokument),
+     * ohne vorher ein vollständiges Dokument aufzubauen.
+     */
+    public void output(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        output(writer);
+    }
+
+    public void output(Writer out) throws IOException {
+        new OverlayOutputProcessor().print(out, Format.getRawFormat());
+        out.flush();
+    }
+
+    public String outputString() {
+        StringWriter writer = new StringWriter();
+        try {
+            output(writer);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return writer.toString();
+    }
+
+    // Nutzt die JDOM-Ausgabe für geteilte Inhalte und schreibt nur materialisierte Nodes selbst
+    private class OverlayOutputProcessor extends AbstractXMLOutputProcessor {
+
+        void print(Writer out, Format format) throws IOException {
+            FormatStack fstack = new FormatStack(format);
+            NamespaceStack nstack = new NamespaceStack();
+
+            printDeclaration(out, fstack);
+            for (Content c : source.getContent()) {
+                if (c instanceof Element) printItem(out, fstack, nstack, root);
+                else if (c instanceof DocType docType) printDocType(out, fstack, docType);
+                else printItem(out, fstack, nstack, c);
+            }
+            write(out, fstack.getLineSeparator());
+        }
+
+        private void printItem(Writer out, FormatStack fstack, NamespaceStack nstack, Object item) throws IOException {
+            if (item instanceof Node n) {
+                printNode(out, fstack, nstack, n);
+            } else if (item instanceof Element e) {
+                printElement(out, fstack, nstack, e);
+            } else if (item instanceof CDATA cdata) {
+                printCDATA(out, fstack, cdata);
+            } else if (item instanceof Text text) {
+                printText(out, fstack, text);
+            } else if (item instanceof Comment comment) {
+                printComment(out, fstack, comment);
+            } else if (item instanceof ProcessingInstruction pi) {
+                printProcessingInstruction(out, fstack, pi);
+            } else if (item instanceof EntityRef ref) {
+                printEntityRef(out, fstack, ref);
+            }
+        }
+
+        private void printNode(Writer out, FormatStack fstack, NamespaceStack nstack, Node n) throws IOException {
+            List<Namespace> declared = new ArrayList<>();
+            declared.add(n.source.getNamespace());
+            declared.addAll(n.source.getAdditionalNamespaces());
+            for (Attribute a : n.attributes) {
+                if (a.getNamespace() != Namespace.NO_NAMESPACE) declared.add(a.getNamespace());
+            }
+            nstack.push(declared);
+            try {
+                write(out, "<");
+                write(out, n.source.getQualifiedName());
+                for (Namespace ns : nstack.addedForward()) printNamespace(out, fstack, ns);
+                for (Attribute a : n.attributes) printAttribute(out, fstack, a);
+
+                if (n.content.isEmpty()) {
+                    write(out, fstack.isExpandEmptyElements() ? "></" + n.source.getQualifiedName() + ">" : " />");
+                    return;
+                }
+                write(out, ">");
+                for (Object item : n.content) printItem(out, fstack, nstack, item);
+                write(out, "</");
+                write(out, n.source.getQualifiedName());
+                write(out, ">");
+            } finally {
+                nstack.pop();
+            }
+        }
+    }
+}
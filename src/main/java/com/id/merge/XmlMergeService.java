@@ -3,10 +3,11 @@ package com.id.merge;
 import com.id.diff.XmlDiffService;
 import com.id.model.Change;
 import com.id.model.ChangeSet;
+import com.id.model.ChangeType;
 import org.jdom2.Document;
-import org.jdom2.Element;
 
 import java.util.*;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class XmlMergeService {
@@ -21,117 +22,121 @@ public class XmlMergeService {
         }
     }
 
+    // Ergebnis eines nicht-destruktiven Merges: der Kunden-Baum bleibt unverändert
+    public static class PreviewResult {
+        public final MergeOverlay merged;
+        public final List<Change> conflicts;
+
+        public PreviewResult(MergeOverlay merged, List<Change> conflicts) {
+            this.merged = merged;
+            this.conflicts = conflicts;
+        }
+    }
+
     public MergeResult merge(Document baselineOld, Document baselineNew, Document customer) {
-        Element oldRoot = baselineOld.getRootElement();
-        Element newRoot = baselineNew.getRootElement();
-        Element customerRoot = customer.getRootElement();
+        // Gleiche Anwendungslogik wie preview(), Ergebnis wird danach in das Kunden-Dokument übertragen
+        MergeOverlay overlay = new MergeOverlay(customer);
+        List<Change> conflicts = mergeChanges(baselineOld, baselineNew, diffCustomer(baselineOld, customer), overlay::apply);
+        overlay.writeBack();
+        return new MergeResult(customer, conflicts);
+    }
+
+    /**
+     * Wie {@link #merge}, verändert aber das Kunden-Dokument nicht.
+     * Die Änderungen landen in einem Copy-on-Write-Overlay, unveränderte Teilbäume werden geteilt.
+     * Das Kunden-Dokument darf nicht verändert werden, solange das Overlay verwendet wird.
+     */
+    public PreviewResult preview(Document baselineOld, Document baselineNew, Document customer) {
+        return preview(baselineOld, baselineNew, customer, diffCustomer(baselineOld, customer));
+    }
 
-        ChangeSet customerChanges = XmlDiffService.compareElements(oldRoot, customerRoot, "root");
+    /**
+     * Wie {@link #preview(Document, Document, Document)} mit bereits berechneten Kundenänderungen
+     * (siehe {@link #diffCustomer}). Bei mehreren Läufen gegen dieselbe baseline_old wird so nur noch
+     * baseline_old gegen baseline_new verglichen, der Kunden-Baum selbst wird nicht erneut durchlaufen.
+     */
+    public PreviewResult preview(Document baselineOld, Document baselineNew, Document customer,
+                                 ChangeSet customerChanges) {
+        MergeOverlay overlay = new MergeOverlay(customer);
+        List<Change> conflicts = mergeChanges(baselineOld, baselineNew, customerChanges, overlay::apply);
+        return new PreviewResult(overlay, conflicts);
+    }
+
+    // Änderungen des Kunden gegenüber baseline_old; einmal berechnen und für mehrere Previews wiederverwenden
+    public ChangeSet diffCustomer(Document baselineOld, Document customer) {
+        return XmlDiffService.compareElements(baselineOld.getRootElement(), customer.getRootElement(), "root");
+    }
+
+    // Baseline-Änderungen ermitteln; nicht konfliktbehaftete werden an apply übergeben, Konflikte zurückgegeben.
+    // Liefert apply false (Änderung nicht eindeutig anwendbar), wird die Änderung ebenfalls als Konflikt gemeldet.
+    private List<Change> mergeChanges(Document baselineOld, Document baselineNew, ChangeSet customerChanges,
+                                      Predicate<Change> apply) {
         Set<String> customerPaths = customerChanges.getChanges().stream()
                 .map(Change::getPath)
                 .collect(Collectors.toSet());
+        Set<String> customerStructuralPaths = customerChanges.getChanges().stream()
+                .filter(XmlMergeService::isStructural)
+                .map(Change::getPath)
+                .collect(Collectors.toSet());
+        Set<String> customerKeys = customerChanges.getChanges().stream()
+                .map(XmlMergeService::conflictKey)
+                .collect(Collectors.toSet());
 
-        ChangeSet baselineChanges = XmlDiffService.compareElements(oldRoot, newRoot, "root");
+        ChangeSet baselineChanges = XmlDiffService.compareElements(
+                baselineOld.getRootElement(), baselineNew.getRootElement(), "root");
 
+        // Konflikte werden pro Operation gemeldet (also ggf. mehrere pro Element):
+        // - Attribut-/Textänderungen kollidieren nur mit einer Kundenänderung an derselben Eigenschaft
+        //   oder mit einer strukturellen Kundenänderung (ADD/REMOVE/MODIFY) am selben Element
+        // - strukturelle Änderungen kollidieren mit jeder Kundenänderung am selben Element
+        // - MODIFY ersetzt den ganzen Teilbaum und kollidiert daher auch mit Kundenänderungen darunter
         List<Change> conflicts = new ArrayList<>();
         for (Change change : baselineChanges.getChanges()) {
-            if (customerPaths.contains(change.getPath())) {
-                conflicts.add(change);
+            boolean conflict;
+            if (change.getType() == ChangeType.MODIFY) {
+                String prefix = change.getPath() + "/";
+                conflict = customerPaths.stream().anyMatch(p -> p.equals(change.getPath()) || p.startsWith(prefix));
+            } else if (isStructural(change)) {
+                conflict = customerPaths.contains(change.getPath());
             } else {
-                applyChange(customerRoot, change);
+                conflict = customerKeys.contains(conflictKey(change)) || customerStructuralPaths.contains(change.getPath());
             }
-        }
-
-        return new MergeResult(customer, conflicts);
-    }
-
-    private void applyChange(Element root, Change change) {
-        Element parent = findParentByPath(root, change.getPath());
-        if (parent == null) return;
-
-        String name = extractElementName(change.getPath());
-        // WICHTIG: Index nur aus dem letzten Segment ziehen (z.B. "item[2]")
-        int nth = extractIndex(lastSegment(change.getPath())) - 1; // 0-basiert
-
-        switch (change.getType()) {
-            case ADD -> {
-                Element toAdd = change.getNewElement().clone();
-                int insertPos = findGlobalInsertPosition(parent, name, nth);
-                if (insertPos < 0) parent.addContent(toAdd);
-                else parent.addContent(insertPos, toAdd);
-            }
-            case REMOVE -> {
-                Element target = findNthChildByName(parent, name, nth);
-                if (target != null) parent.removeContent(target);
-            }
-            case MODIFY -> {
-                Element target = findNthChildByName(parent, name, nth);
-                if (target != null) {
-                    int globalIdx = parent.indexOf(target);
-                    parent.setContent(globalIdx, change.getNewElement().clone());
-                }
+            if (conflict || !apply.test(change)) {
+                conflicts.add(change);
             }
         }
+        return conflicts;
     }
 
-    private String lastSegment(String path) {
-        String[] parts = path.split("/");
-        return parts[parts.length - 1];
+    private static boolean isStructural(Change change) {
+        return switch (change.getType()) {
+            case SET_ATTRIBUTE, REMOVE_ATTRIBUTE, REPLACE_TEXT -> false;
+            default -> true;
+        };
     }
 
-    private Element findNthChildByName(Element parent, String name, int nth) {
-        int count = 0;
-        for (org.jdom2.Content c : parent.getContent()) {
-            if (c instanceof Element e && e.getName().equals(name)) {
-                if (count == nth) return e;
-                count++;
-            }
-        }
-        return null;
+    // Pfad + Eigenschaft, z.B. "root/item[1]@label" oder "root/item[1]#text"
+    private static String conflictKey(Change change) {
+        return switch (change.getType()) {
+            case SET_ATTRIBUTE, REMOVE_ATTRIBUTE -> change.getPath() + "@" + change.getAttributeName();
+            case REPLACE_TEXT -> change.getPath() + "#text";
+            default -> change.getPath();
+        };
     }
 
-    // Ermittelt die globale Einfügeposition im Parent-Content für das n-te gleichnamige Element
-    private int findGlobalInsertPosition(Element parent, String name, int nth) {
-        if (nth <= 0) {
-            // vor das erste gleichnamige (oder ans Ende, falls keines existiert)
-            for (int i = 0; i < parent.getContentSize(); i++) {
-                org.jdom2.Content c = parent.getContent(i);
-                if (c instanceof Element e && e.getName().equals(name)) return i;
-            }
-            return parent.getContentSize();
-        }
-        int count = 0;
-        for (int i = 0; i < parent.getContentSize(); i++) {
-            org.jdom2.Content c = parent.getContent(i);
-            if (c instanceof Element e && e.getName().equals(name)) {
-                if (count == nth - 1) return i + 1; // hinter das (nth-1)-te
-                count++;
-            }
-        }
-        return parent.getContentSize();
+    static String lastSegment(String path) {
+        String[] parts = path.split("/");
+        return parts[parts.length - 1];
     }
 
-    private Element findParentByPath(Element root, String fullPath) {
-        String[] parts = fullPath.split("/");
-        Element current = root;
-        for (int i = 1; i < parts.length - 1; i++) {
-            String raw = parts[i];
-            String name = raw.replaceAll("\\[\\d+\\]", "");
-            int index = extractIndex(raw) - 1;
-            List<Element> children = current.getChildren(name);
-            if (children.isEmpty() || index >= children.size()) return null;
-            current = children.get(index);
-        }
-        return current;
-    }
 
-    private String extractElementName(String path) {
+    static String extractElementName(String path) {
         String[] parts = path.split("/");
         String last = parts[parts.length - 1];
         return last.replaceAll("\\[\\d+\\]", "");
     }
 
-    private int extractIndex(String part) {
+    static int extractIndex(String part) {
         java.util.regex.Matcher m = java.util.regex.Pattern.compile(".*\\[(\\d+)]").matcher(part);
         if (m.matches()) {
             return Integer.parseInt(m.group(1));
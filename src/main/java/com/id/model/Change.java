@@ -11,6 +11,15 @@ public class Change {
     private final String path;
     private final Element oldElement;
     private final Element newElement;
+    // Nur für SET_ATTRIBUTE / REMOVE_ATTRIBUTE
+    private final String attributeName;
+    // Alter/neuer Attributwert bzw. Text (SET_ATTRIBUTE, REMOVE_ATTRIBUTE, REPLACE_TEXT)
+    private final String oldValue;
+    private final String newValue;
+
+    public Change(ChangeType type, String path, Element oldElement, Element newElement) {
+        this(type, path, oldElement, newElement, null, null, null);
+    }
 
     @Override
     public String toString() {
@@ -19,6 +28,9 @@ public class Change {
                 ", path='" + path + '\'' +
                 ", oldElement=" + (oldElement != null ? oldElement.getName() : "null") +
                 ", newElement=" + (newElement != null ? newElement.getName() : "null") +
+                (attributeName != null ? ", attributeName='" + attributeName + '\'' : "") +
+                (oldValue != null ? ", oldValue='" + oldValue + '\'' : "") +
+                (newValue != null ? ", newValue='" + newValue + '\'' : "") +
                 '}';
     }
-}
\ No newline at end of file
+}
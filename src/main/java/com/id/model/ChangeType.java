@@ -1,5 +1,5 @@
 package com.id.model;
 
 public enum ChangeType {
-    ADD, REMOVE, MATCH, MODIFY
+    ADD, REMOVE, MATCH, MODIFY, SET_ATTRIBUTE, REMOVE_ATTRIBUTE, REPLACE_TEXT
 }
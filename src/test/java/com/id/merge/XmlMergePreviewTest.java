@@ -0,0 +1,141 @@
+package com.id.merge;
+
+import com.id.model.ChangeSet;
+import org.jdom2.Document;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+public class XmlMergePreviewTest {
+    private static final XMLOutputter RAW = new XMLOutputter(Format.getRawFormat());
+
+    @Test
+    public void testPreview_leavesCustomerUnchanged() throws Exception {
+        String oldXml = """
+            <root>
+                <group id=\"1\" label=\"a\">
+                    <item id=\"1\">A</item>
+                </group>
+                <other><item id=\"1\"/></other>
+            </root>""";
+
+        String newXml = """
+            <root version=\"2\">
+                <group id=\"1\" label=\"b\">
+                    <item id=\"1\">X</item>
+                    <item id=\"2\">B</item>
+                </group>
+                <other><item id=\"1\"/></other>
+            </root>""";
+
+        String customerXml = """
+            <root>
+                <group id=\"1\" label=\"a\">
+                    <item id=\"1\">A</item>
+                    <item id=\"9\">Kunde</item>
+                </group>
+                <other><item id=\"1\"/><item id=\"7\"/></other>
+            </root>""";
+
+        SAXBuilder builder = new SAXBuilder();
+        Document oldDoc = builder.build(new StringReader(oldXml));
+        Document newDoc = builder.build(new StringReader(newXml));
+        Document custDoc = builder.build(new StringReader(customerXml));
+        String customerBefore = RAW.outputString(custDoc);
+
+        XmlMergeService service = new XmlMergeService();
+        XmlMergeService.PreviewResult preview = service.preview(oldDoc, newDoc, custDoc);
+
+        assertEquals(customerBefore, RAW.outputString(custDoc));
+
+        // Gleiches Ergebnis wie der destruktive Merge, sowohl committet als auch direkt serialisiert
+        Document committed = preview.merged.commit();
+        XmlMergeService.MergeResult merged = service.merge(oldDoc, newDoc, custDoc);
+
+        assertNotSame(custDoc, committed);
+        assertEquals(RAW.outputString(merged.merged), RAW.outputString(committed));
+        assertEquals(RAW.outputString(committed), preview.merged.outputString());
+        assertEquals(merged.conflicts.size(), preview.conflicts.size());
+    }
+
+    @Test
+    public void testPreview_severalBaselinesAgainstOneCustomer() throws Exception {
+        SAXBuilder builder = new SAXBuilder();
+        Document oldDoc = builder.build(new File("src/test/resources/merge-examples/baseline_old/data.xml"));
+        Document newDoc = builder.build(new File("src/test/resources/merge-examples/baseline_new/data.xml"));
+        Document custDoc = builder.build(new File("src/test/resources/merge-examples/customer/data.xml"));
+        String customerBefore = RAW.outputString(custDoc);
+
+        XmlMergeService service = new XmlMergeService();
+        XmlMergeService.PreviewResult first = service.preview(oldDoc, newDoc, custDoc);
+        XmlMergeService.PreviewResult second = service.preview(oldDoc, oldDoc, custDoc);
+
+        assertEquals(customerBefore, RAW.outputString(custDoc));
+        assertEquals(customerBefore, second.merged.outputString());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        first.merged.output(out);
+        assertEquals(RAW.outputString(first.merged.commit()), out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testPreview_matchesMergeForRootRenameAndEmptyText() throws Exception {
+        assertPreviewMatchesMerge(
+                "<r><g id=\"1\">x</g></r>",
+                "<s><g id=\"1\">x</g></s>",
+                "<r><g id=\"1\">x</g></r>");
+        assertPreviewMatchesMerge(
+                "<r><g id=\"1\">x</g></r>",
+                "<r><g id=\"1\"></g></r>",
+                "<r><g id=\"1\">x</g><g id=\"2\"/></r>");
+    }
+
+    @Test
+    public void testPreview_reusesCustomerDiff() throws Exception {
+        String oldXml = "<r><g id=\"1\" a=\"1\">x</g></r>";
+        String customerXml = "<r><g id=\"1\" a=\"1\">x</g><g id=\"2\"/></r>";
+        String[] newXmls = {
+                "<r><g id=\"1\" a=\"2\">x</g></r>",
+                "<r><g id=\"1\" a=\"1\">y</g></r>",
+                "<s><g id=\"1\" a=\"1\">x</g></s>"
+        };
+
+        SAXBuilder builder = new SAXBuilder();
+        Document oldDoc = builder.build(new StringReader(oldXml));
+        Document custDoc = builder.build(new StringReader(customerXml));
+
+        XmlMergeService service = new XmlMergeService();
+        ChangeSet customerChanges = service.diffCustomer(oldDoc, custDoc);
+
+        for (String newXml : newXmls) {
+            Document newDoc = builder.build(new StringReader(newXml));
+            XmlMergeService.PreviewResult reused = service.preview(oldDoc, newDoc, custDoc, customerChanges);
+            XmlMergeService.PreviewResult fresh = service.preview(oldDoc, newDoc, custDoc);
+
+            assertEquals(fresh.merged.outputString(), reused.merged.outputString());
+            assertEquals(fresh.conflicts.size(), reused.conflicts.size());
+        }
+    }
+
+    private static void assertPreviewMatchesMerge(String oldXml, String newXml, String customerXml) throws Exception {
+        SAXBuilder builder = new SAXBuilder();
+        Document oldDoc = builder.build(new StringReader(oldXml));
+        Document newDoc = builder.build(new StringReader(newXml));
+
+        XmlMergeService service = new XmlMergeService();
+        XmlMergeService.PreviewResult preview = service.preview(oldDoc, newDoc, builder.build(new StringReader(customerXml)));
+        XmlMergeService.MergeResult merged = service.merge(oldDoc, newDoc, builder.build(new StringReader(customerXml)));
+
+        assertEquals(RAW.outputString(merged.merged), preview.merged.outputString());
+        assertEquals(RAW.outputString(merged.merged), RAW.outputString(preview.merged.commit()));
+    }
+}
@@ -1,5 +1,7 @@
 package com.id.merge;
 
+import com.id.model.ChangeType;
+import org.jdom2.Comment;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.input.SAXBuilder;
@@ -9,6 +11,8 @@ import java.io.StringReader;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class XmlMergeTest {
@@ -115,4 +119,268 @@ public class XmlMergeTest {
         assertEquals("1", items.get(0).getAttributeValue("id"));
         assertTrue(result.conflicts.isEmpty());
     }
+
+    @Test
+    public void testMerge_modifyAttributeInPlace() throws Exception {
+        String oldXml = """
+            <root>
+                <group id=\"1\" label=\"a\" obsolete=\"x\">
+                    <item id=\"1\">A</item>
+                </group>
+            </root>""";
+
+        String newXml = """
+            <root>
+                <group id=\"1\" label=\"b\">
+                    <item id=\"1\">A</item>
+                </group>
+            </root>""";
+
+        String customerXml = """
+            <root>
+                <group id=\"1\" label=\"a\" obsolete=\"x\">
+                    <item id=\"1\">A</item>
+                    <item id=\"9\">Kunde</item>
+                </group>
+            </root>""";
+
+        SAXBuilder builder = new SAXBuilder();
+        Document oldDoc = builder.build(new StringReader(oldXml));
+        Document newDoc = builder.build(new StringReader(newXml));
+        Document custDoc = builder.build(new StringReader(customerXml));
+
+        Element group = custDoc.getRootElement().getChild("group");
+        Element customerItem = group.getChildren("item").get(1);
+
+        XmlMergeService service = new XmlMergeService();
+        XmlMergeService.MergeResult result = service.merge(oldDoc, newDoc, custDoc);
+
+        Element merged = result.merged.getRootElement().getChild("group");
+
+        // Element wird nicht ersetzt, nur das Attribut geändert → Kunden-Kinder bleiben erhalten
+        assertSame(group, merged);
+        assertSame(customerItem, merged.getChildren("item").get(1));
+        assertEquals("b", merged.getAttributeValue("label"));
+        assertNull(merged.getAttribute("obsolete"));
+        assertEquals(2, merged.getChildren("item").size());
+        assertTrue(result.conflicts.isEmpty());
+    }
+
+    @Test
+    public void testMerge_replaceTextKeepsChildren() throws Exception {
+        String oldXml = """
+            <root><entry>alt<item id=\"1\"/></entry></root>""";
+
+        String newXml = """
+            <root><entry>neu<item id=\"1\"/></entry></root>""";
+
+        String customerXml = """
+            <root><entry>alt<item id=\"1\"/><item id=\"2\"/></entry></root>""";
+
+        SAXBuilder builder = new SAXBuilder();
+        Document oldDoc = builder.build(new StringReader(oldXml));
+        Document newDoc = builder.build(new StringReader(newXml));
+        Document custDoc = builder.build(new StringReader(customerXml));
+
+        XmlMergeService service = new XmlMergeService();
+        XmlMergeService.MergeResult result = service.merge(oldDoc, newDoc, custDoc);
+
+        Element entry = result.merged.getRootElement().getChild("entry");
+
+        assertEquals("neu", entry.getTextNormalize());
+        assertEquals(2, entry.getChildren("item").size());
+        assertTrue(result.conflicts.isEmpty());
+    }
+
+    @Test
+    public void testMerge_modifyAttributeWithoutId() throws Exception {
+        String oldXml = """
+            <root><group label=\"a\"><item id=\"1\"/></group></root>""";
+
+        String newXml = """
+            <root><group label=\"b\"><item id=\"1\"/></group></root>""";
+
+        String customerXml = """
+            <root><group label=\"a\"><item id=\"1\"/><item id=\"2\"/></group></root>""";
+
+        SAXBuilder builder = new SAXBuilder();
+        Document oldDoc = builder.build(new StringReader(oldXml));
+        Document newDoc = builder.build(new StringReader(newXml));
+        Document custDoc = builder.build(new StringReader(customerXml));
+
+        Element group = custDoc.getRootElement().getChild("group");
+
+        XmlMergeService service = new XmlMergeService();
+        XmlMergeService.MergeResult result = service.merge(oldDoc, newDoc, custDoc);
+
+        Element merged = result.merged.getRootElement().getChild("group");
+
+        // Ohne id wird positionsbasiert gematcht → Attributänderung statt REMOVE+ADD der ganzen Gruppe
+        assertSame(group, merged);
+        assertEquals("b", merged.getAttributeValue("label"));
+        assertEquals(2, merged.getChildren("item").size());
+        assertTrue(result.conflicts.isEmpty());
+    }
+
+    @Test
+    public void testMerge_renameRoot() throws Exception {
+        String oldXml = """
+            <root><item id=\"1\"/></root>""";
+
+        String newXml = """
+            <config><item id=\"1\"/></config>""";
+
+        String customerXml = """
+            <root><item id=\"1\"/></root>""";
+
+        SAXBuilder builder = new SAXBuilder();
+        Document oldDoc = builder.build(new StringReader(oldXml));
+        Document newDoc = builder.build(new StringReader(newXml));
+        Document custDoc = builder.build(new StringReader(customerXml));
+
+        XmlMergeService service = new XmlMergeService();
+        XmlMergeService.MergeResult result = service.merge(oldDoc, newDoc, custDoc);
+
+        assertEquals("config", result.merged.getRootElement().getName());
+        assertTrue(result.conflicts.isEmpty());
+    }
+
+    @Test
+    public void testMerge_conflictsPerAttribute() throws Exception {
+        String oldXml = """
+            <root><item id=\"1\" a=\"1\" b=\"1\" c=\"1\"/></root>""";
+
+        String newXml = """
+            <root><item id=\"1\" a=\"2\" b=\"1\" c=\"2\"/></root>""";
+
+        String customerXml = """
+            <root><item id=\"1\" a=\"1\" b=\"3\" c=\"3\"/></root>""";
+
+        SAXBuilder builder = new SAXBuilder();
+        Document oldDoc = builder.build(new StringReader(oldXml));
+        Document newDoc = builder.build(new StringReader(newXml));
+        Document custDoc = builder.build(new StringReader(customerXml));
+
+        XmlMergeService service = new XmlMergeService();
+        XmlMergeService.MergeResult result = service.merge(oldDoc, newDoc, custDoc);
+
+        Element item = result.merged.getRootElement().getChild("item");
+
+        // a: nur Baseline geändert → übernommen; b: nur Kunde; c: beide → Konflikt, Kundenwert bleibt
+        assertEquals("2", item.getAttributeValue("a"));
+        assertEquals("3", item.getAttributeValue("b"));
+        assertEquals("3", item.getAttributeValue("c"));
+        assertEquals(1, result.conflicts.size());
+        assertEquals("c", result.conflicts.get(0).getAttributeName());
+    }
+
+    @Test
+    public void testMerge_renameRootConflictsWithCustomerChanges() throws Exception {
+        String oldXml = """
+            <root><item id=\"1\"/></root>""";
+
+        String newXml = """
+            <config><item id=\"1\"/></config>""";
+
+        String customerXml = """
+            <root><item id=\"1\"/><item id=\"9\">Kunde</item></root>""";
+
+        SAXBuilder builder = new SAXBuilder();
+        Document oldDoc = builder.build(new StringReader(oldXml));
+        Document newDoc = builder.build(new StringReader(newXml));
+        Document custDoc = builder.build(new StringReader(customerXml));
+
+        XmlMergeService service = new XmlMergeService();
+        XmlMergeService.MergeResult result = service.merge(oldDoc, newDoc, custDoc);
+
+        // Umbenennung würde den Kunden-Eintrag verwerfen → Konflikt, Kundenstand bleibt erhalten
+        Element root = result.merged.getRootElement();
+        assertEquals("root", root.getName());
+        assertEquals(2, root.getChildren("item").size());
+        assertEquals(1, result.conflicts.size());
+        assertEquals(ChangeType.MODIFY, result.conflicts.get(0).getType());
+    }
+
+    @Test
+    public void testMerge_replaceTextKeepsComments() throws Exception {
+        String oldXml = """
+            <root><g id=\"1\">x<!--keep--></g></root>""";
+
+        String newXml = """
+            <root><g id=\"1\">y<!--keep--></g></root>""";
+
+        String customerXml = """
+            <root><g id=\"1\">x<!--keep--></g></root>""";
+
+        SAXBuilder builder = new SAXBuilder();
+        Document oldDoc = builder.build(new StringReader(oldXml));
+        Document newDoc = builder.build(new StringReader(newXml));
+        Document custDoc = builder.build(new StringReader(customerXml));
+
+        XmlMergeService service = new XmlMergeService();
+        XmlMergeService.MergeResult result = service.merge(oldDoc, newDoc, custDoc);
+
+        Element g = result.merged.getRootElement().getChild("g");
+
+        assertEquals(2, g.getContentSize());
+        assertEquals("y", g.getContent(0).getValue());
+        assertTrue(g.getContent(1) instanceof Comment);
+        assertTrue(result.conflicts.isEmpty());
+    }
+
+    @Test
+    public void testMerge_replaceTextBetweenChildren() throws Exception {
+        String oldXml = """
+            <root><g id=\"1\">a<b/>c</g></root>""";
+
+        String newXml = """
+            <root><g id=\"1\">a<b/>d</g></root>""";
+
+        String customerXml = """
+            <root><g id=\"1\">a<b/>c</g></root>""";
+
+        SAXBuilder builder = new SAXBuilder();
+        Document oldDoc = builder.build(new StringReader(oldXml));
+        Document newDoc = builder.build(new StringReader(newXml));
+        Document custDoc = builder.build(new StringReader(customerXml));
+
+        XmlMergeService service = new XmlMergeService();
+        XmlMergeService.MergeResult result = service.merge(oldDoc, newDoc, custDoc);
+
+        Element g = result.merged.getRootElement().getChild("g");
+
+        // Segmente werden eins zu eins ersetzt, Reihenfolge bleibt a<b/>d
+        assertEquals(3, g.getContentSize());
+        assertEquals("a", g.getContent(0).getValue());
+        assertTrue(g.getContent(1) instanceof Element);
+        assertEquals("d", g.getContent(2).getValue());
+        assertTrue(result.conflicts.isEmpty());
+    }
+
+    @Test
+    public void testMerge_replaceTextAmbiguousIsConflict() throws Exception {
+        String oldXml = """
+            <root><g id=\"1\">a<b/>c</g></root>""";
+
+        String newXml = """
+            <root><g id=\"1\">x<b/></g></root>""";
+
+        String customerXml = """
+            <root><g id=\"1\">a<b/>c</g></root>""";
+
+        SAXBuilder builder = new SAXBuilder();
+        Document oldDoc = builder.build(new StringReader(oldXml));
+        Document newDoc = builder.build(new StringReader(newXml));
+        Document custDoc = builder.build(new StringReader(customerXml));
+
+        XmlMergeService service = new XmlMergeService();
+        XmlMergeService.MergeResult result = service.merge(oldDoc, newDoc, custDoc);
+
+        Element g = result.merged.getRootElement().getChild("g");
+
+        // 2 Segmente → 1 Segment lässt sich nicht eindeutig zuordnen → Konflikt, Kundentext bleibt
+        assertEquals("ac", g.getTextNormalize());
+        assertEquals(1, result.conflicts.size());
+        assertEquals(ChangeType.REPLACE_TEXT, result.conflicts.get(0).getType());
+    }
 }